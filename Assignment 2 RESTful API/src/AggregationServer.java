@@ -1,6 +1,11 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import javax.net.ssl.*;
 import org.json.*;
 
 /**
@@ -14,10 +19,56 @@ public class AggregationServer {
     private static final int MAX_ENTRIES = 20;
     private static final String FILE_PATH = "weather_data.json";
 
+    // Persistence settings, overridable with -D system properties
+    private static final boolean DURABLE = Boolean.getBoolean("aggregation.durable");
+    private static final long SNAPSHOT_INTERVAL_MS = positiveProperty("aggregation.snapshot.intervalMs", 5000L);
+    private static final int SNAPSHOT_MAX_DIRTY = (int) positiveProperty("aggregation.snapshot.maxDirtyWrites", 50);
+
+    // Connection settings; TLS uses the standard javax.net.ssl.keyStore properties
+    private static final boolean TLS = Boolean.getBoolean("aggregation.tls");
+    private static final int TLS_SESSION_CACHE_SIZE = Integer.getInteger("aggregation.tls.sessionCacheSize", 20000);
+    private static final int TLS_SESSION_TIMEOUT = Integer.getInteger("aggregation.tls.sessionTimeoutSeconds", 86400);
+    private static final int KEEP_ALIVE_MS = (int) positiveProperty("aggregation.keepAliveMs", 15000);
+    private static final int REQUEST_TIMEOUT_MS = (int) positiveProperty("aggregation.requestTimeoutMs", 10000);
+    // Limit on the request line and headers together
+    static final int MAX_HEADER_BYTES = 8192;
+
+    // Closes connections still busy with a request well after its deadline
+    private static final ScheduledExecutorService requestWatchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "request-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Seconds clients may cache a GET response for; 0 means they must revalidate with the ETag
+    private static final int CACHE_MAX_AGE = Integer.getInteger("aggregation.cache.maxAgeSeconds", 0);
+    // Distinguishes ETags of this run from those handed out before a restart
+    private static final long STARTED_AT = System.currentTimeMillis();
+
+    // Optional per-station history, disabled unless -Daggregation.history=true
+    private static final WeatherHistory history = Boolean.getBoolean("aggregation.history")
+            ? new WeatherHistory(
+                    (int) positiveProperty("aggregation.history.maxStations", 100),
+                    (int) positiveProperty("aggregation.history.samples", 1024),
+                    (int) positiveProperty("aggregation.history.minutes", 1440),
+                    (int) positiveProperty("aggregation.history.hours", 168))
+            : null;
+
+    // The mutable maps below are only touched while holding storeLock
+    private static final Object storeLock = new Object();
     private static Map<String, String> weatherData = new LinkedHashMap<>();
-    private static Map<String, Long> lastUpdated = new HashMap<>();
+    private static Map<String, Long> lastUpdated = new LinkedHashMap<>(); // oldest update first
     private static Map<String, Boolean> clientHasUploadedData = new HashMap<>();
+    private static long storeVersion = 0;
+    private static volatile boolean snapshotStale = false;
+    private static volatile StoreSnapshot currentSnapshot = new StoreSnapshot(0, Collections.emptyMap());
+
+    // Per-state and per-grid-cell aggregates, updated together with weatherData
+    private static final WeatherAggregates aggregates = new WeatherAggregates(gridDegreesProperty());
+
     private static LamportClock lamportClock = new LamportClock();
+    private static SnapshotWriter snapshotWriter = new SnapshotWriter(
+            Paths.get(FILE_PATH), SNAPSHOT_INTERVAL_MS, SNAPSHOT_MAX_DIRTY, AggregationServer::latestSnapshot);
 
     /**
      * Main method to start the Aggregation Server.
@@ -39,9 +90,15 @@ public class AggregationServer {
             }
         }
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Aggregation Server started on port " + PORT);
-            Runtime.getRuntime().addShutdownHook(new Thread(AggregationServer::saveWeatherDataToFile));
+        try (ServerSocket serverSocket = TLS ? createTlsServerSocket() : new ServerSocket(PORT)) {
+            System.out.println("Aggregation Server started on port " + PORT + (TLS ? " with TLS" : ""));
+            Runtime.getRuntime().addShutdownHook(new Thread(snapshotWriter::flush));
+
+            if (!DURABLE) {
+                Thread snapshotThread = new Thread(snapshotWriter, "snapshot-writer");
+                snapshotThread.setDaemon(true);
+                snapshotThread.start();
+            }
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
@@ -50,6 +107,67 @@ public class AggregationServer {
         }
     }
 
+    /**
+     * Reads a numeric system property that must be positive.
+     *
+     * @param property The system property name.
+     * @param defaultValue The value used when the property is unset or invalid.
+     * @return The property value, or the default if it is not a positive number.
+     */
+    private static long positiveProperty(String property, long defaultValue) {
+        long value = Long.getLong(property, defaultValue);
+        if (value <= 0) {
+            System.err.println("Invalid " + property + " " + value + ", using default " + defaultValue);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Reads the aggregation.grid.degrees property, the size of an aggregate grid cell.
+     * The server refuses to start if it is not a positive number.
+     *
+     * @return The grid cell size in degrees.
+     */
+    private static double gridDegreesProperty() {
+        String value = System.getProperty("aggregation.grid.degrees", "1.0");
+        try {
+            double degrees = Double.parseDouble(value);
+            if (degrees > 0 && !Double.isInfinite(degrees)) {
+                return degrees;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Invalid aggregation.grid.degrees " + value + ", it must be a positive number");
+        System.exit(1);
+        return 0;
+    }
+
+    /**
+     * Creates a TLS server socket using the JVM's default SSLContext, which reads
+     * its certificate from the javax.net.ssl.keyStore system properties.
+     * The session cache is enlarged so reconnecting stations can resume their
+     * previous session instead of paying for a full handshake.
+     *
+     * @return The listening server socket.
+     * @throws IOException if the socket cannot be created or TLS is not configured.
+     */
+    private static ServerSocket createTlsServerSocket() throws IOException {
+        SSLContext context;
+        try {
+            context = SSLContext.getDefault();
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException("TLS is not available", e);
+        }
+
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(TLS_SESSION_TIMEOUT);
+
+        return context.getServerSocketFactory().createServerSocket(PORT);
+    }
+
     /**
      * Loads existing weather data from the specified file.
      * Each line in the file is expected to be a valid JSON object.
@@ -57,13 +175,18 @@ public class AggregationServer {
     private static void loadWeatherDataFromFile() {
         File file = new File(FILE_PATH);
         if (file.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            // Snapshots are written as UTF-8, so they must be read back the same way on every platform
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
                 String line;
-                while ((line = reader.readLine()) != null) {
-                    JSONObject jsonObject = new JSONObject(line);
-                    String id = jsonObject.getString("id");
-                    weatherData.put(id, jsonObject.toString());
-                    lastUpdated.put(id, System.currentTimeMillis());
+                synchronized (storeLock) {
+                    while ((line = reader.readLine()) != null) {
+                        JSONObject jsonObject = new JSONObject(line);
+                        String id = jsonObject.getString("id");
+                        weatherData.put(id, jsonObject.toString());
+                        lastUpdated.put(id, System.currentTimeMillis());
+                        aggregates.put(id, jsonObject.optJSONObject("data"));
+                    }
+                    markStoreChanged();
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -72,116 +195,405 @@ public class AggregationServer {
     }
 
     /**
-     * Saves the current weather data to a file.
-     * Each entry is written as a new line in the JSON format.
+     * Records a change to the weather data. The copy that readers see is only
+     * made when one is next asked for, so a change costs no more than the change itself.
+     * Must be called while holding storeLock, after every change to weatherData.
+     */
+    private static void markStoreChanged() {
+        storeVersion++;
+        snapshotStale = true;
+    }
+
+    /**
+     * Returns an immutable copy of the weather data as of the latest change.
+     * The copy is reused until the data changes again, so readers and the
+     * snapshot writer only take storeLock when there is something new to copy.
+     *
+     * @return The latest snapshot.
+     */
+    static StoreSnapshot latestSnapshot() {
+        if (snapshotStale) {
+            synchronized (storeLock) {
+                if (snapshotStale) {
+                    currentSnapshot = new StoreSnapshot(storeVersion,
+                            Collections.unmodifiableMap(new LinkedHashMap<>(weatherData)));
+                    snapshotStale = false;
+                }
+            }
+        }
+        return currentSnapshot;
+    }
+
+    /**
+     * Persists a change to the weather data: synchronously in durable mode,
+     * otherwise by leaving it to the snapshot writer.
+     * Must not be called while holding storeLock.
      */
-    private static void saveWeatherDataToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_PATH))) {
-            for (String data : weatherData.values()) {
+    private static void persistChange() {
+        if (DURABLE) {
+            snapshotWriter.flush();
+        } else {
+            snapshotWriter.markDirty();
+        }
+    }
+
+    /**
+     * Saves the given snapshot to a file.
+     * Each entry is written as a new line in the JSON format. The data is
+     * written to a temporary file first and then renamed over the old file,
+     * so a crash mid-write never leaves a truncated data file behind.
+     *
+     * @param target The file to write.
+     * @param snapshot The point-in-time copy of the weather data to persist.
+     * @throws IOException if an I/O error occurs.
+     */
+    static void saveWeatherDataToFile(Path target, StoreSnapshot snapshot) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String data : snapshot.data.values()) {
                 writer.write(data);
                 writer.newLine();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * StoreSnapshot is an immutable, versioned view of the weather data.
+     */
+    static class StoreSnapshot {
+        private final long version;
+        private final Map<String, String> data;
+
+        StoreSnapshot(long version, Map<String, String> data) {
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    /**
+     * SnapshotWriter persists the latest published snapshot in the background.
+     * A snapshot is written every intervalMs, or sooner once maxDirtyWrites
+     * writes have accumulated, so at most that much data can be lost on a
+     * crash. Request handlers never wait on disk I/O unless the server runs
+     * in durable mode.
+     */
+    static class SnapshotWriter implements Runnable {
+        private final Object fileLock = new Object();
+        private final Path file;
+        private final long intervalMs;
+        private final int maxDirtyWrites;
+        private final Supplier<StoreSnapshot> source;
+        private int dirtyWrites = 0;
+        private long persistedVersion = 0;
+
+        /**
+         * Creates a snapshot writer.
+         *
+         * @param file The file snapshots are written to.
+         * @param intervalMs How often a pending change is written, must be positive.
+         * @param maxDirtyWrites Pending writes that trigger an early snapshot, must be positive.
+         * @param source Supplies the latest published snapshot.
+         */
+        SnapshotWriter(Path file, long intervalMs, int maxDirtyWrites, Supplier<StoreSnapshot> source) {
+            if (intervalMs <= 0 || maxDirtyWrites <= 0) {
+                throw new IllegalArgumentException("Snapshot interval and dirty write limit must be positive");
+            }
+            this.file = file;
+            this.intervalMs = intervalMs;
+            this.maxDirtyWrites = maxDirtyWrites;
+            this.source = source;
+        }
+
+        //Records a write and wakes the writer early if too many are pending.
+        synchronized void markDirty() {
+            dirtyWrites++;
+            if (dirtyWrites >= maxDirtyWrites) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    try {
+                        if (dirtyWrites < maxDirtyWrites) {
+                            wait(intervalMs);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    dirtyWrites = 0;
+                }
+                flush();
+            }
+        }
+
+        /**
+         * Writes the current snapshot if it has not been persisted yet.
+         * Serialized so the background thread, durable PUTs and the
+         * shutdown hook never write the file concurrently.
+         */
+        void flush() {
+            synchronized (fileLock) {
+                StoreSnapshot snapshot = source.get();
+                if (snapshot.version == persistedVersion) {
+                    return;
+                }
+                try {
+                    saveWeatherDataToFile(file, snapshot);
+                    persistedVersion = snapshot.version;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
     /**
      * Handles client connections in a separate thread.
      * Processes incoming requests and delegates to appropriate handlers.
+     * HTTP/1.1 connections are kept open for further requests until the
+     * client asks to close them or they sit idle for KEEP_ALIVE_MS. Once a
+     * request has started, all of it must arrive within the request timeout,
+     * and its request line and headers may not exceed MAX_HEADER_BYTES.
      */
-    private static class ClientHandler implements Runnable {
+    static class ClientHandler implements Runnable {
         private Socket clientSocket;
+        private final int requestTimeoutMs;
+        private boolean keepAlive = false; // whether the current request's connection stays open
+        private int headerBytesLeft; // of the current request
 
         public ClientHandler(Socket socket) {
+            this(socket, REQUEST_TIMEOUT_MS);
+        }
+
+        ClientHandler(Socket socket, int requestTimeoutMs) {
             this.clientSocket = socket;
+            this.requestTimeoutMs = requestTimeoutMs;
         }
 
         @Override
         public void run() {
-            try (InputStream inputStream = clientSocket.getInputStream();
+            try (InputStream socketInput = clientSocket.getInputStream();
                  OutputStream outputStream = clientSocket.getOutputStream()) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                String requestLine = reader.readLine();
+                // Responses are flushed once as a whole, so don't hold them back waiting for ACKs
+                clientSocket.setTcpNoDelay(true);
+                // Read as bytes: Content-Length counts bytes, not decoded characters
+                RequestInputStream requestInput = new RequestInputStream(clientSocket, socketInput);
+                InputStream inputStream = new BufferedInputStream(requestInput);
+                boolean firstRequest = true;
+
+                do {
+                    // Waiting for the next request on an idle connection
+                    int firstByte;
+                    try {
+                        firstByte = inputStream.read();
+                    } catch (SocketTimeoutException e) {
+                        return; // idle keep-alive connection, just close it
+                    }
 
-                if (requestLine == null) {
-                    sendErrorResponse(outputStream, 400, "Bad Request");
-                    return;
-                }
+                    if (firstByte == -1) {
+                        if (firstRequest) {
+                            keepAlive = false;
+                            sendErrorResponse(outputStream, 400, "Bad Request");
+                        }
+                        return;
+                    }
+                    firstRequest = false;
+
+                    // A request has started, it must be complete before its deadline
+                    requestInput.startRequest(requestTimeoutMs);
+                    headerBytesLeft = MAX_HEADER_BYTES;
+                    try {
+                        handleRequest(readLine(inputStream, firstByte), inputStream, outputStream);
+                    } catch (SocketTimeoutException e) {
+                        keepAlive = false;
+                        sendErrorResponse(outputStream, 408, "Request Timeout");
+                    } catch (HeadersTooLargeException e) {
+                        keepAlive = false;
+                        sendErrorResponse(outputStream, 431, "Request Header Fields Too Large");
+                    } finally {
+                        requestInput.endRequest();
+                    }
+                } while (keepAlive);
+            } catch (SSLException e) {
+                System.err.println("TLS connection failed: " + e.getMessage());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
-                String[] requestParts = requestLine.split(" ");
-                String method = requestParts[0];
-                String path = requestParts[1];
+        /**
+         * Reads the rest of a request after its request line and dispatches it.
+         *
+         * @param requestLine The request line, e.g. "GET / HTTP/1.1".
+         * @param inputStream The InputStream to read headers and body from.
+         * @param outputStream The OutputStream to send the response.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void handleRequest(String requestLine, InputStream inputStream, OutputStream outputStream) throws IOException {
+            Map<String, String> headers = readHeaders(inputStream);
+            String[] requestParts = requestLine.split(" ");
+            if (requestParts.length < 2) {
+                keepAlive = false;
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+            String method = requestParts[0];
+            String path = requestParts[1];
+            keepAlive = requestParts.length > 2 && requestParts[2].equals("HTTP/1.1")
+                    && !"close".equalsIgnoreCase(headers.get("connection"));
+
+            if (method.equals("PUT")) {
+                handlePutRequest(inputStream, headers, outputStream);
+            } else if (method.equals("GET") && path.startsWith("/weather/") && path.contains("/history")) {
+                handleHistoryRequest(path, outputStream);
+            } else if (method.equals("GET") && path.startsWith("/aggregates")) {
+                handleAggregatesRequest(path, outputStream);
+            } else if (method.equals("GET")) {
+                handleGetRequest(headers, outputStream);
+            } else {
+                keepAlive = false;
+                sendErrorResponse(outputStream, 400, "Bad Request");
+            }
+        }
 
-                if (method.equals("PUT")) {
-                    handlePutRequest(reader, outputStream);
-                } else if (method.equals("GET")) {
-                    handleGetRequest(outputStream);
-                } else {
-                    sendErrorResponse(outputStream, 400, "Bad Request");
+        /**
+         * Reads a CRLF or LF terminated line of UTF-8 text of the request head.
+         *
+         * @param inputStream The InputStream to read from.
+         * @param firstByte The first byte of the line, already read by the caller.
+         * @return The line without its terminator, or null at the end of the stream.
+         * @throws HeadersTooLargeException if the request head exceeds MAX_HEADER_BYTES.
+         * @throws IOException if an I/O error occurs.
+         */
+        private String readLine(InputStream inputStream, int firstByte) throws IOException {
+            if (firstByte == -1) {
+                return null;
+            }
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b = firstByte;
+            while (b != -1) {
+                if (--headerBytesLeft < 0) {
+                    throw new HeadersTooLargeException();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                if (b == '\n') {
+                    break;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+                b = inputStream.read();
             }
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the request headers up to the blank line that ends them.
+         *
+         * @param inputStream The InputStream to read the request from.
+         * @return The headers keyed by lower-case name.
+         * @throws IOException if an I/O error occurs.
+         */
+        private Map<String, String> readHeaders(InputStream inputStream) throws IOException {
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(inputStream, inputStream.read())) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+            }
+            return headers;
+        }
+
+        //Returns the Connection header line matching whether this connection stays open.
+        private String connectionHeader() {
+            return keepAlive ? "Connection: keep-alive" : "Connection: close";
         }
 
         /**
          * Handles PUT requests to update weather data.
          * Reads the request body, updates the data, and sends the appropriate response.
          *
-         * @param reader The BufferedReader to read the request.
+         * @param inputStream The InputStream to read the request body from.
+         * @param headers The request headers.
          * @param outputStream The OutputStream to send the response.
          * @throws IOException if an I/O error occurs.
          */
-        private void handlePutRequest(BufferedReader reader, OutputStream outputStream) throws IOException {
-            StringBuilder requestBody = new StringBuilder();
-            String line;
-            int contentLength = 0;
-
-            // Read headers to get content length
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                if (line.startsWith("Content-Length: ")) {
-                    contentLength = Integer.parseInt(line.substring("Content-Length: ".length()).trim());
-                }
+        private void handlePutRequest(InputStream inputStream, Map<String, String> headers, OutputStream outputStream) throws IOException {
+            int contentLength;
+            try {
+                contentLength = Integer.parseInt(headers.getOrDefault("content-length", "0").trim());
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+            if (contentLength < 0) {
+                keepAlive = false;
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
             }
 
-            // Read the request body
-            if (contentLength > 0) {
-                char[] buffer = new char[contentLength];
-                reader.read(buffer, 0, contentLength);
-                requestBody.append(buffer);
+            // Read the whole request body, so the next request on this connection starts cleanly
+            byte[] body = inputStream.readNBytes(contentLength);
+            if (body.length < contentLength) {
+                keepAlive = false;
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
             }
+            String requestBody = new String(body, StandardCharsets.UTF_8);
 
             try {
-                JSONObject jsonObject = new JSONObject(requestBody.toString());
+                JSONObject jsonObject = new JSONObject(requestBody);
                 String id = jsonObject.getString("id");
                 lamportClock.increment();
 
-                // Update weather data
-                weatherData.put(id, jsonObject.toString());
-                lastUpdated.put(id, System.currentTimeMillis());
-                saveWeatherDataToFile();
-
-                // Clean up stale data
-                cleanUpStaleData();
-
-                // Maintain the number of entries
-                if (weatherData.size() > MAX_ENTRIES) {
-                    Iterator<String> iterator = weatherData.keySet().iterator();
-                    while (iterator.hasNext() && weatherData.size() > MAX_ENTRIES) {
-                        String key = iterator.next();
-                        long lastUpdate = lastUpdated.getOrDefault(key, 0L);
-                        if (System.currentTimeMillis() - lastUpdate > TIMEOUT) {
-                            iterator.remove();
-                            lastUpdated.remove(key);
+                boolean isFirstUpload;
+                synchronized (storeLock) {
+                    // Update weather data
+                    weatherData.put(id, jsonObject.toString());
+                    // Re-insert so lastUpdated stays ordered by update time
+                    lastUpdated.remove(id);
+                    lastUpdated.put(id, System.currentTimeMillis());
+                    aggregates.put(id, jsonObject.optJSONObject("data"));
+
+                    // Clean up stale data
+                    cleanUpStaleData();
+
+                    // Maintain the number of entries
+                    if (weatherData.size() > MAX_ENTRIES) {
+                        Iterator<String> iterator = weatherData.keySet().iterator();
+                        while (iterator.hasNext() && weatherData.size() > MAX_ENTRIES) {
+                            String key = iterator.next();
+                            long lastUpdate = lastUpdated.getOrDefault(key, 0L);
+                            if (System.currentTimeMillis() - lastUpdate > TIMEOUT) {
+                                iterator.remove();
+                                lastUpdated.remove(key);
+                                aggregates.remove(key);
+                            }
                         }
                     }
-                }
 
-                // Determine if this is the first time the client has uploaded data
-                boolean isFirstUpload = !clientHasUploadedData.getOrDefault(id, false);
+                    // Determine if this is the first time the client has uploaded data
+                    isFirstUpload = !clientHasUploadedData.getOrDefault(id, false);
+
+                    clientHasUploadedData.put(id, true);
+                    markStoreChanged();
+                }
+                persistChange();
 
-                clientHasUploadedData.put(id, true);
+                // Recorded after the store update, so a history failure can't lose an upload
+                if (history != null) {
+                    history.record(id, System.currentTimeMillis(), jsonObject.optJSONObject("data"));
+                }
 
                 // Write response: 201 for first upload, 200 for subsequent
                 if (isFirstUpload) {
@@ -195,44 +607,215 @@ public class AggregationServer {
 
         }
 
+        /**
+         * Removes stale stations and persists the removal if there was any.
+         */
+        private void expireStaleData() {
+            boolean expired;
+            synchronized (storeLock) {
+                expired = cleanUpStaleData();
+                if (expired) {
+                    markStoreChanged();
+                }
+            }
+            if (expired) {
+                persistChange();
+            }
+        }
+
         /**
          * Cleans up stale data from the weather data storage.
          * Removes entries that haven't been updated within the defined timeout period.
+         * lastUpdated is ordered oldest first, so only the expired entries are visited.
+         * Must be called while holding storeLock.
+         *
+         * @return true if any entry was removed.
          */
-        private void cleanUpStaleData() {
+        private boolean cleanUpStaleData() {
             long currentTime = System.currentTimeMillis();
+            boolean removed = false;
             Iterator<Map.Entry<String, Long>> iterator = lastUpdated.entrySet().iterator();
             while (iterator.hasNext()) {
                 Map.Entry<String, Long> entry = iterator.next();
-                if (currentTime - entry.getValue() > TIMEOUT) {
-                    weatherData.remove(entry.getKey());
-                    iterator.remove();
+                if (currentTime - entry.getValue() <= TIMEOUT) {
+                    break;
                 }
+                weatherData.remove(entry.getKey());
+                aggregates.remove(entry.getKey());
+                iterator.remove();
+                removed = true;
             }
+            return removed;
         }
 
         /**
          * Handles GET requests to retrieve weather data.
          * Generates a JSON response containing the current weather data.
+         * The response carries an ETag derived from the snapshot version, and a
+         * request whose If-None-Match matches it gets 304 Not Modified instead.
          *
+         * @param headers The request headers.
          * @param outputStream The OutputStream to send the response.
          * @throws IOException if an I/O error occurs.
          */
-        private void handleGetRequest(OutputStream outputStream) throws IOException {
+        private void handleGetRequest(Map<String, String> headers, OutputStream outputStream) throws IOException {
+            String ifNoneMatch = headers.get("if-none-match");
+
             lamportClock.increment();
-            cleanUpStaleData();
+            expireStaleData();
+
+            StoreSnapshot snapshot = latestSnapshot();
+            String etag = "\"" + STARTED_AT + "-" + snapshot.version + "\"";
+            String cacheControl = CACHE_MAX_AGE > 0 ? "max-age=" + CACHE_MAX_AGE : "no-cache";
+
+            if (etag.equals(ifNoneMatch)) {
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+                writer.println("HTTP/1.1 304 Not Modified");
+                writer.println("ETag: " + etag);
+                writer.println("Cache-Control: " + cacheControl);
+                writer.println("Lamport-Clock: " + lamportClock.getClock());
+                writer.println(connectionHeader());
+                writer.println();
+                writer.flush();
+                return;
+            }
 
             JSONObject responseJson = new JSONObject();
-            for (Map.Entry<String, String> entry : weatherData.entrySet()) {
+            for (Map.Entry<String, String> entry : snapshot.data.entrySet()) {
                 responseJson.put(entry.getKey(), new JSONObject(entry.getValue()));
             }
 
-            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+            sendJsonResponse(outputStream, responseJson, "ETag: " + etag, "Cache-Control: " + cacheControl);
+        }
+
+        /**
+         * Handles GET /weather/{id}/history?from=&to=&step= requests.
+         * from and to are epoch milliseconds and default to the last hour,
+         * step is the bucket width in milliseconds and defaults to 0 (no bucketing).
+         *
+         * @param path The request path including the query string.
+         * @param outputStream The OutputStream to send the response.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void handleHistoryRequest(String path, OutputStream outputStream) throws IOException {
+            lamportClock.increment();
+            if (history == null) {
+                sendErrorResponse(outputStream, 404, "Not Found");
+                return;
+            }
+
+            URI uri;
+            try {
+                uri = new URI(path);
+            } catch (URISyntaxException e) {
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+
+            String[] segments = uri.getPath().split("/");
+            if (segments.length != 4 || !segments[3].equals("history")) {
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+            String id = segments[2];
+            Map<String, String> params = parseQuery(uri);
+
+            JSONObject responseJson;
+            try {
+                long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : System.currentTimeMillis();
+                long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : to - WeatherHistory.HOUR;
+                long step = params.containsKey("step") ? Long.parseLong(params.get("step")) : 0;
+                if (from > to || step < 0) {
+                    sendErrorResponse(outputStream, 400, "Bad Request");
+                    return;
+                }
+                responseJson = history.query(id, from, to, step);
+            } catch (NumberFormatException e) {
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+
+            if (responseJson == null) {
+                sendErrorResponse(outputStream, 404, "Not Found");
+                return;
+            }
+            sendJsonResponse(outputStream, responseJson);
+        }
+
+        /**
+         * Handles GET /aggregates?by=state|grid requests.
+         * The aggregates are maintained on every update, so this only walks the groups.
+         *
+         * @param path The request path including the query string.
+         * @param outputStream The OutputStream to send the response.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void handleAggregatesRequest(String path, OutputStream outputStream) throws IOException {
+            lamportClock.increment();
+
+            URI uri;
+            try {
+                uri = new URI(path);
+            } catch (URISyntaxException e) {
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+
+            // Expire stale stations first so they drop out of the aggregates
+            expireStaleData();
+
+            String by = parseQuery(uri).getOrDefault("by", "state");
+            JSONObject responseJson = aggregates.query(by);
+            if (responseJson == null) {
+                sendErrorResponse(outputStream, 400, "Bad Request");
+                return;
+            }
+            sendJsonResponse(outputStream, responseJson);
+        }
+
+        /**
+         * Parses the query string of a request URI into a map of parameters.
+         *
+         * @param uri The request URI.
+         * @return The query parameters, empty if there are none.
+         */
+        private Map<String, String> parseQuery(URI uri) {
+            Map<String, String> params = new HashMap<>();
+            if (uri.getQuery() != null) {
+                for (String param : uri.getQuery().split("&")) {
+                    String[] keyValue = param.split("=", 2);
+                    if (keyValue.length == 2) {
+                        params.put(keyValue[0], keyValue[1]);
+                    }
+                }
+            }
+            return params;
+        }
+
+        /**
+         * Sends a 200 OK response with a JSON body.
+         * Every JSON response carries the server's Lamport clock so clients
+         * querying several servers can tell which answer is the most recent.
+         *
+         * @param outputStream The OutputStream to send the response.
+         * @param responseJson The JSON body to send.
+         * @param headers Additional header lines to send.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void sendJsonResponse(OutputStream outputStream, JSONObject responseJson, String... headers) throws IOException {
+            String body = responseJson.toString();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
             writer.println("HTTP/1.1 200 OK");
             writer.println("Content-Type: application/json");
-            writer.println("Content-Length: " + responseJson.toString().getBytes().length);
+            writer.println("Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length);
+            writer.println("Lamport-Clock: " + lamportClock.getClock());
+            writer.println(connectionHeader());
+            for (String header : headers) {
+                writer.println(header);
+            }
             writer.println();
-            writer.println(responseJson.toString());
+            // No trailing newline: any byte past Content-Length would corrupt the next response on a kept-alive connection
+            writer.print(body);
             writer.flush();
         }
 
@@ -245,9 +828,10 @@ public class AggregationServer {
          * @throws IOException if an I/O error occurs.
          */
         private void sendResponse(OutputStream outputStream, int statusCode, String message) throws IOException {
-            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
             writer.println("HTTP/1.1 " + statusCode + " " + message);
             writer.println("Content-Length: 0");
+            writer.println(connectionHeader());
             writer.println();
             writer.flush();
         }
@@ -261,14 +845,91 @@ public class AggregationServer {
          * @throws IOException if an I/O error occurs.
          */
         private void sendErrorResponse(OutputStream outputStream, int statusCode, String message) throws IOException {
-            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
             writer.println("HTTP/1.1 " + statusCode + " " + message);
             writer.println("Content-Length: 0");
+            writer.println(connectionHeader());
             writer.println();
             writer.flush();
         }
     }
 
+    /**
+     * HeadersTooLargeException is thrown when a request line and headers exceed MAX_HEADER_BYTES.
+     */
+    static class HeadersTooLargeException extends IOException {
+        HeadersTooLargeException() {
+            super("Request headers exceed " + MAX_HEADER_BYTES + " bytes");
+        }
+    }
+
+    /**
+     * RequestInputStream enforces the deadline of the request being read.
+     * A plain socket read timeout restarts with every byte, so a client sending
+     * one byte at a time could hold a connection forever. Instead, the timeout
+     * is set to the time left before the deadline ahead of every read. A read
+     * of a single TLS record can still span many socket reads, so as a backstop
+     * the socket is closed if the request is still running a second after its
+     * deadline. Between requests the idle KEEP_ALIVE_MS timeout applies.
+     */
+    static class RequestInputStream extends FilterInputStream {
+        private static final long WATCHDOG_GRACE_MS = 1000;
+
+        private final Socket socket;
+        private long deadline = 0; // 0 while waiting for the next request
+        private ScheduledFuture<?> watchdog;
+
+        RequestInputStream(Socket socket, InputStream in) {
+            super(in);
+            this.socket = socket;
+        }
+
+        //Starts the deadline of a request whose first byte has just arrived.
+        void startRequest(long timeoutMs) {
+            deadline = System.currentTimeMillis() + timeoutMs;
+            watchdog = requestWatchdog.schedule(() -> {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }, timeoutMs + WATCHDOG_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        //Ends the current request, going back to the idle timeout.
+        void endRequest() {
+            deadline = 0;
+            if (watchdog != null) {
+                watchdog.cancel(false);
+                watchdog = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setTimeout();
+            return super.read(b, off, len);
+        }
+
+        private void setTimeout() throws IOException {
+            if (deadline == 0) {
+                socket.setSoTimeout(KEEP_ALIVE_MS);
+                return;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Request not received within its deadline");
+            }
+            socket.setSoTimeout((int) remaining);
+        }
+    }
+
     /**
      * LamportClock provides a simple implementation of a logical clock
      * for synchronizing events across distributed systems.
@@ -0,0 +1,293 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AggregationServerTest {
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Opens a connection to a ClientHandler serving it on a background thread.
+     */
+    private Socket connect() throws IOException {
+        return connect(10_000);
+    }
+
+    private Socket connect(int requestTimeoutMs) throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try (ServerSocket listener = serverSocket) {
+                new AggregationServer.ClientHandler(listener.accept(), requestTimeoutMs).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+        socket.setSoTimeout(5_000); // a hung server fails the test instead of blocking it
+        return socket;
+    }
+
+    private static void send(Socket socket, String head, byte[] body) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    // Reads one response and returns its status line and headers, followed by the body
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            response.append(line).append('\n');
+            if (line.regionMatches(true, 0, "Content-Length:", 0, "Content-Length:".length())) {
+                contentLength = Integer.parseInt(line.substring("Content-Length:".length()).trim());
+            }
+        }
+        response.append('\n').append(new String(in.readNBytes(contentLength), StandardCharsets.UTF_8));
+        return response.toString();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testKeepAliveServesSeveralRequests() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n", new byte[0]);
+            String first = readResponse(socket.getInputStream());
+            assertTrue(first.startsWith("HTTP/1.1 200 OK"), first);
+            assertTrue(first.contains("Connection: keep-alive"), first);
+
+            send(socket, "GET /aggregates HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n", new byte[0]);
+            String second = readResponse(socket.getInputStream());
+            assertTrue(second.startsWith("HTTP/1.1 200 OK"), second);
+            assertTrue(second.contains("Connection: close"), second);
+
+            assertEquals(-1, socket.getInputStream().read(), "Server should close after Connection: close");
+        }
+    }
+
+    @Test
+    public void testHttp10ClosesConnection() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.0\r\n\r\n", new byte[0]);
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.contains("Connection: close"), response);
+            assertEquals(-1, socket.getInputStream().read(), "HTTP/1.0 connections should not be kept alive");
+        }
+    }
+
+    @Test
+    public void testPutWithNonAsciiBody() throws IOException {
+        byte[] body = "{\"id\":\"non_ascii.txt\",\"data\":{\"name\":\"Ad\u00e9la\u00efde\",\"state\":\"SA\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = connect()) {
+            // Content-Length counts bytes, which is more than the number of characters here
+            send(socket, "PUT /weather.json HTTP/1.1\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + body.length + "\r\n\r\n", body);
+            String put = readResponse(socket.getInputStream());
+            assertTrue(put.startsWith("HTTP/1.1 201 Created") || put.startsWith("HTTP/1.1 200 OK"), put);
+
+            // The connection must still be in sync for the next request
+            send(socket, "GET / HTTP/1.1\r\nConnection: close\r\n\r\n", new byte[0]);
+            String get = readResponse(socket.getInputStream());
+            assertTrue(get.contains("Ad\u00e9la\u00efde"), get);
+        }
+    }
+
+    private static String header(String response, String name) {
+        for (String line : response.split("\n")) {
+            if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testConditionalGet() throws IOException {
+        byte[] body = "{\"id\":\"etag.txt\",\"data\":{\"air_temp\":\"10\"}}".getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.1\r\n\r\n", new byte[0]);
+            String first = readResponse(socket.getInputStream());
+            String etag = header(first, "ETag");
+            assertNotNull(etag, first);
+            assertEquals("no-cache", header(first, "Cache-Control"));
+
+            send(socket, "GET / HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n", new byte[0]);
+            String unchanged = readResponse(socket.getInputStream());
+            assertTrue(unchanged.startsWith("HTTP/1.1 304 Not Modified"), unchanged);
+            assertEquals(etag, header(unchanged, "ETag"));
+
+            send(socket, "PUT /weather.json HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n", body);
+            readResponse(socket.getInputStream());
+
+            send(socket, "GET / HTTP/1.1\r\nIf-None-Match: " + etag + "\r\nConnection: close\r\n\r\n", new byte[0]);
+            String changed = readResponse(socket.getInputStream());
+            assertTrue(changed.startsWith("HTTP/1.1 200 OK"), "A changed store should not match the old ETag: " + changed);
+            assertNotEquals(etag, header(changed, "ETag"));
+            assertTrue(changed.contains("etag.txt"), changed);
+        }
+    }
+
+    @Test
+    public void testTricklingClientGetsRequestTimeout() throws Exception {
+        try (Socket socket = connect(500)) {
+            long start = System.currentTimeMillis();
+            send(socket, "GET / HTTP/1.1\r\nX-Slow: ", new byte[0]);
+
+            // Each byte arrives well within the timeout, but the request as a whole does not
+            InputStream in = socket.getInputStream();
+            while (in.available() == 0 && System.currentTimeMillis() - start < 4_000) {
+                send(socket, "a", new byte[0]);
+                Thread.sleep(100);
+            }
+
+            String response = readResponse(in);
+            assertTrue(response.startsWith("HTTP/1.1 408 Request Timeout"), response);
+            assertTrue(System.currentTimeMillis() - start < 2_000, "The deadline should cover the whole request");
+        }
+    }
+
+    @Test
+    public void testOversizedHeadersAreRejected() throws IOException {
+        // One byte past the limit, so the server has read everything that was sent when it answers
+        String head = "GET / HTTP/1.1\r\nX-Large: ";
+        String header = head + "a".repeat(AggregationServer.MAX_HEADER_BYTES + 1 - head.length());
+        try (Socket socket = connect()) {
+            send(socket, header, new byte[0]);
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 431 Request Header Fields Too Large"), response);
+            assertTrue(response.contains("Connection: close"), response);
+        }
+    }
+
+    @Test
+    public void testTruncatedBodyIsRejected() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "PUT /weather.json HTTP/1.1\r\nContent-Length: 100\r\n\r\n",
+                    "{\"id\":".getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), response);
+        }
+    }
+
+    private static AggregationServer.StoreSnapshot snapshot(long version, String... ids) {
+        Map<String, String> data = new LinkedHashMap<>();
+        for (String id : ids) {
+            data.put(id, "{\"id\":\"" + id + "\"}");
+        }
+        return new AggregationServer.StoreSnapshot(version, data);
+    }
+
+    // Waits up to two seconds for the file to hold the expected number of lines
+    private static boolean awaitLines(Path file, int lines) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            if (Files.exists(file) && Files.readAllLines(file).size() == lines) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    @Test
+    public void testFlushWritesSnapshotAtomically() throws IOException {
+        Path file = Files.createTempDirectory("snapshot").resolve("weather_data.json");
+        AtomicReference<AggregationServer.StoreSnapshot> current = new AtomicReference<>(snapshot(1, "a", "b"));
+        AggregationServer.SnapshotWriter writer = new AggregationServer.SnapshotWriter(file, 60_000, 100, current::get);
+
+        // Durable mode and the shutdown hook rely on flush writing straight away
+        writer.flush();
+
+        assertEquals(List.of("{\"id\":\"a\"}", "{\"id\":\"b\"}"), Files.readAllLines(file, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(file.resolveSibling("weather_data.json.tmp")), "Temp file should be renamed away");
+
+        // An unchanged version is not written again
+        Files.writeString(file, "untouched");
+        writer.flush();
+        assertEquals("untouched", Files.readString(file));
+
+        current.set(snapshot(2, "a"));
+        writer.flush();
+        assertEquals(List.of("{\"id\":\"a\"}"), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDirtyWritesTriggerEarlySnapshot() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("weather_data.json");
+        AtomicReference<AggregationServer.StoreSnapshot> current = new AtomicReference<>(snapshot(1, "a"));
+        AggregationServer.SnapshotWriter writer = new AggregationServer.SnapshotWriter(file, 60_000, 3, current::get);
+        Thread thread = new Thread(writer);
+        thread.start();
+        try {
+            writer.markDirty();
+            writer.markDirty();
+            Thread.sleep(100);
+            assertFalse(Files.exists(file), "Nothing should be written below the dirty write limit");
+
+            current.set(snapshot(2, "a", "b", "c"));
+            writer.markDirty();
+            assertTrue(awaitLines(file, 3), "Reaching the dirty write limit should write a snapshot");
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testIntervalTriggersSnapshot() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("weather_data.json");
+        AtomicReference<AggregationServer.StoreSnapshot> current = new AtomicReference<>(snapshot(1, "a", "b"));
+        AggregationServer.SnapshotWriter writer = new AggregationServer.SnapshotWriter(file, 50, 1_000, current::get);
+        Thread thread = new Thread(writer);
+        thread.start();
+        try {
+            writer.markDirty();
+            assertTrue(awaitLines(file, 2), "A pending change should be written after the interval");
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testSnapshotWriterRejectsNonPositiveSettings() {
+        Path file = Path.of("unused.json");
+        assertThrows(IllegalArgumentException.class,
+                () -> new AggregationServer.SnapshotWriter(file, 0, 10, () -> snapshot(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AggregationServer.SnapshotWriter(file, -5, 10, () -> snapshot(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AggregationServer.SnapshotWriter(file, 1_000, 0, () -> snapshot(1)));
+    }
+}
@@ -1,6 +1,7 @@
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import org.json.JSONObject;
 
 /**
@@ -110,10 +111,12 @@ public class ContentServer {
             conn.setRequestMethod("PUT");
             conn.setDoOutput(true);
             conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Content-Length", String.valueOf(jsonPayload.toString().length()));
+            // Content-Length counts the encoded bytes, not characters
+            byte[] body = jsonPayload.toString().getBytes(StandardCharsets.UTF_8);
+            conn.setFixedLengthStreamingMode(body.length);
 
             try (OutputStream outputStream = conn.getOutputStream()) {
-                outputStream.write(jsonPayload.toString().getBytes());
+                outputStream.write(body);
                 outputStream.flush();
             }
 
@@ -1,19 +1,19 @@
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
  * GETClient allows users to interact with the AggregationServer
  * to retrieve weather data on demand. It supports user commands
- * to either request data or exit the application.
+ * to either request data or exit the application. Several server
+ * URLs may be given, in which case they are queried concurrently.
  */
 public class GETClient {
 
     static boolean isTestMode = false; // Introduce a flag for test mode
+    private static final WeatherClient client = new WeatherClient(); // Keeps its response cache between requests
 
     static void setTestMode(boolean testMode) {
         isTestMode = testMode;
@@ -23,20 +23,20 @@ public class GETClient {
      * Main method to execute the GETClient application.
      * Initializes user input handling and manages requests to the server.
      *
-     * @param args Command-line arguments containing the server URL.
+     * @param args Command-line arguments containing one or more server URLs.
      */
     public static void main(String[] args) throws Exception {
-        if (args.length != 1) {
-            System.err.println("Usage: java GETClient <server-url>");
+        if (args.length < 1) {
+            System.err.println("Usage: java GETClient <server-url> [<server-url> ...]");
             System.exit(1);
         }
 
-        String serverUrl = args[0];
+        List<String> serverUrls = Arrays.asList(args);
         Scanner scanner = new Scanner(System.in);
 
         while (true) {  // Infinite loop to keep the connection persistent
             if (isTestMode) {
-                sendGetRequest(serverUrl);
+                sendGetRequest(serverUrls);
                 break;
             }
 
@@ -48,7 +48,7 @@ public class GETClient {
                 System.out.println("Exiting GETClient...");
                 break;
             } else if (command.equals("request")) {
-                sendGetRequest(serverUrl);
+                sendGetRequest(serverUrls);
             } else {
                 System.out.println("Invalid command. Please enter 'request' or 'exit'.");
             }
@@ -57,34 +57,30 @@ public class GETClient {
     }
 
     /**
-     * Sends a GET request to the specified server URL.
-     * Processes the server's response and prints the weather data.
+     * Sends a GET request to each of the specified server URLs.
+     * Merges the servers' responses and prints the weather data of every station.
      */
-    private static void sendGetRequest(String serverUrl) throws Exception {
+    private static void sendGetRequest(List<String> serverUrls) throws Exception {
         try {
-            // Construct the URL object
-            URL url = new URL(serverUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
+            // Query every server concurrently, served from the local cache where still fresh
+            Map<String, JSONObject> stations = client.fetch(serverUrls);
 
-            // Get the response code
-            int responseCode = conn.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // Read the response
-                BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                in.close();
-
-                // Parse the JSON response
-                JSONObject jsonResponse = new JSONObject(response.toString());
+            if (stations.isEmpty()) {
+                System.out.println("No weather data available.");
+                return;
+            }
 
-                // Since the JSON response has a nested object with the ID as the key
-                String id = jsonResponse.keys().next();
-                JSONObject weatherData = jsonResponse.getJSONObject(id).getJSONObject("data");
+            // The response has a nested object per station with the ID as the key
+            boolean first = true;
+            for (JSONObject station : stations.values()) {
+                JSONObject weatherData = station.optJSONObject("data");
+                if (weatherData == null) {
+                    continue;
+                }
+                if (!first) {
+                    System.out.println();
+                }
+                first = false;
 
                 // Print the weather data
                 System.out.println("Weather Data:");
@@ -92,8 +88,6 @@ public class GETClient {
                 weatherData.keySet().forEach(key -> {
                     System.out.println(key + ": " + weatherData.get(key));
                 });
-            } else {
-                System.err.println("GET request failed. Response Code: " + responseCode);
             }
         } catch (Exception e) {
             System.out.println("Something went wrong. Data could have expired or connection could have been unsuccessful");
@@ -1,13 +1,79 @@
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 public class GETClientTests {
 
+    // Starts a local server that answers every GET with the given body and Lamport clock
+    private static HttpServer startFakeServer(String body, int lamportClock) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Lamport-Clock", String.valueOf(lamportClock));
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testGETClientPrintsEveryMergedStation() throws Exception {
+        HttpServer first = startFakeServer("{\"a.txt\":{\"data\":{\"name\":\"Adelaide\"}},"
+                + "\"b.txt\":{\"data\":{\"name\":\"Old Darwin\"}}}", 1);
+        HttpServer second = startFakeServer("{\"b.txt\":{\"data\":{\"name\":\"Darwin\"}}}", 5);
+        try {
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            GETClient.setTestMode(true);
+            GETClient.main(new String[]{url(first), url(second)});
+
+            String expected = "Weather Data:" + System.lineSeparator()
+                    + "name: Adelaide" + System.lineSeparator()
+                    + System.lineSeparator()
+                    + "Weather Data:" + System.lineSeparator()
+                    + "name: Darwin" + System.lineSeparator();
+            assertEquals(expected, outContent.toString(),
+                    "Every station should be printed, taking the copy from the server with the higher Lamport clock.");
+        } finally {
+            first.stop(0);
+            second.stop(0);
+        }
+    }
+
+    @Test
+    public void testGETClientNoData() throws Exception {
+        HttpServer server = startFakeServer("{}", 1);
+        try {
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            GETClient.setTestMode(true);
+            GETClient.main(new String[]{url(server)});
+
+            assertEquals("No weather data available." + System.lineSeparator(), outContent.toString());
+        } finally {
+            server.stop(0);
+        }
+    }
+
     @Test
     public void testGETClientValidServer() throws Exception {
         // Mock valid server URL
@@ -0,0 +1,120 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import javax.net.ssl.*;
+
+/**
+ * HandshakeBenchmark measures what TLS adds to a GET request against the
+ * AggregationServer. It compares a new plain TCP connection per request with
+ * a new TLS connection doing a full handshake, a new TLS connection resuming
+ * a cached session, and a single kept-alive TLS connection.
+ *
+ * The TLS server's certificate must be trusted through the standard
+ * javax.net.ssl.trustStore system properties.
+ */
+public class HandshakeBenchmark {
+    private static final int WARMUP = 50;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Command-line arguments: the plain server URL, the TLS server URL
+     *             and optionally the number of requests per mode.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java HandshakeBenchmark <http-url> <https-url> [requests]");
+            System.exit(1);
+        }
+
+        URI plainUrl = URI.create(args[0]);
+        URI tlsUrl = URI.create(args[1]);
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        SSLSocketFactory factory = SSLContext.getDefault().getSocketFactory();
+
+        report("plain TCP, new connection", requests, () -> {
+            try (Socket socket = new Socket(plainUrl.getHost(), plainUrl.getPort())) {
+                sendGet(socket, plainUrl, false);
+            }
+        });
+
+        report("TLS, full handshake", requests, () -> {
+            try (SSLSocket socket = (SSLSocket) factory.createSocket(tlsUrl.getHost(), tlsUrl.getPort())) {
+                sendGet(socket, tlsUrl, false);
+                // Drop the session so the next connection cannot resume it
+                socket.getSession().invalidate();
+            }
+        });
+
+        report("TLS, resumed session", requests, () -> {
+            try (SSLSocket socket = (SSLSocket) factory.createSocket(tlsUrl.getHost(), tlsUrl.getPort())) {
+                sendGet(socket, tlsUrl, false);
+            }
+        });
+
+        try (SSLSocket socket = (SSLSocket) factory.createSocket(tlsUrl.getHost(), tlsUrl.getPort())) {
+            report("TLS, kept-alive connection", requests, () -> sendGet(socket, tlsUrl, true));
+        }
+    }
+
+    private static void report(String mode, int requests, Request request) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            request.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            request.run();
+        }
+        double millisPerRequest = (System.nanoTime() - start) / 1e6 / requests;
+        System.out.printf("%-28s %8.3f ms/request%n", mode, millisPerRequest);
+    }
+
+    /**
+     * Sends a GET request on the socket and reads the whole response.
+     */
+    private static void sendGet(Socket socket, URI url, boolean keepAlive) throws IOException {
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+        String request = "GET / HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + ":" + url.getPort() + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in);
+        if (!statusLine.startsWith("HTTP/1.1 200")) {
+            throw new IOException("Unexpected response: " + statusLine);
+        }
+
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, "Content-Length:".length())) {
+                contentLength = Integer.parseInt(line.substring("Content-Length:".length()).trim());
+            }
+        }
+        in.readNBytes(contentLength);
+    }
+
+    // Reads a header line byte by byte, so no part of the body is consumed
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        if (c == -1 && line.length() == 0) {
+            throw new EOFException("Connection closed by server");
+        }
+        return line.toString();
+    }
+
+    private interface Request {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.*;
+import org.json.*;
+
+/**
+ * WeatherAggregates maintains min/max/avg/count of the numeric weather fields
+ * grouped by state and by lat/lon grid cell. The groups are updated whenever a
+ * station is stored or removed, so answering a query only walks the groups
+ * and never the individual stations.
+ */
+public class WeatherAggregates {
+    private final double gridDegrees;
+    private final Map<String, Contribution> byStation = new HashMap<>();
+    private final Map<String, Group> stateGroups = new TreeMap<>();
+    private final Map<String, Group> gridGroups = new TreeMap<>();
+
+    /**
+     * Creates an empty set of aggregates.
+     *
+     * @param gridDegrees Width and height of a grid cell in degrees, must be positive.
+     */
+    public WeatherAggregates(double gridDegrees) {
+        if (!(gridDegrees > 0) || Double.isInfinite(gridDegrees)) {
+            throw new IllegalArgumentException("Grid cell size must be a positive number of degrees: " + gridDegrees);
+        }
+        this.gridDegrees = gridDegrees;
+    }
+
+    /**
+     * Adds or replaces the contribution of a station.
+     *
+     * @param id The station id.
+     * @param data The station's "data" object as uploaded by the content server.
+     */
+    public synchronized void put(String id, JSONObject data) {
+        remove(id);
+        if (data == null) {
+            return;
+        }
+
+        double[] values = new double[WeatherFields.NUMERIC.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = WeatherFields.parseValue(data.opt(WeatherFields.NUMERIC[i]));
+        }
+
+        String state = data.optString("state", "").trim();
+        String cell = gridCell(data);
+        Contribution contribution = new Contribution(state.isEmpty() ? null : state, cell, values);
+        byStation.put(id, contribution);
+
+        if (contribution.state != null) {
+            stateGroups.computeIfAbsent(contribution.state, k -> new Group()).add(values);
+        }
+        if (contribution.cell != null) {
+            gridGroups.computeIfAbsent(contribution.cell, k -> new Group()).add(values);
+        }
+    }
+
+    /**
+     * Removes the contribution of a station, if it has one.
+     *
+     * @param id The station id.
+     */
+    public synchronized void remove(String id) {
+        Contribution contribution = byStation.remove(id);
+        if (contribution == null) {
+            return;
+        }
+        if (contribution.state != null) {
+            removeFrom(stateGroups, contribution.state, contribution.values);
+        }
+        if (contribution.cell != null) {
+            removeFrom(gridGroups, contribution.cell, contribution.values);
+        }
+    }
+
+    /**
+     * Returns the current aggregates for a grouping.
+     *
+     * @param by Either "state" or "grid".
+     * @return The aggregates as JSON, or null if the grouping is unknown.
+     */
+    public synchronized JSONObject query(String by) {
+        Map<String, Group> groups;
+        if (by.equals("state")) {
+            groups = stateGroups;
+        } else if (by.equals("grid")) {
+            groups = gridGroups;
+        } else {
+            return null;
+        }
+
+        JSONObject groupsJson = new JSONObject();
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            groupsJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("by", by);
+        if (by.equals("grid")) {
+            result.put("cell_degrees", gridDegrees);
+        }
+        result.put("groups", groupsJson);
+        return result;
+    }
+
+    //Returns the south-west corner of the station's grid cell as "lat,lon", or null if it has no position.
+    private String gridCell(JSONObject data) {
+        double lat = WeatherFields.parseValue(data.opt("lat"));
+        double lon = WeatherFields.parseValue(data.opt("lon"));
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            return null;
+        }
+        // Rounded so fractional cell sizes don't produce keys like -34.900000000000006
+        double cellLat = Math.round(Math.floor(lat / gridDegrees) * gridDegrees * 1e6) / 1e6;
+        double cellLon = Math.round(Math.floor(lon / gridDegrees) * gridDegrees * 1e6) / 1e6;
+        return cellLat + "," + cellLon;
+    }
+
+    private static void removeFrom(Map<String, Group> groups, String key, double[] values) {
+        Group group = groups.get(key);
+        group.remove(values);
+        if (group.stations == 0) {
+            groups.remove(key);
+        }
+    }
+
+    /**
+     * Contribution remembers what a station added, so it can be taken out again.
+     */
+    private static class Contribution {
+        private final String state;
+        private final String cell;
+        private final double[] values;
+
+        Contribution(String state, String cell, double[] values) {
+            this.state = state;
+            this.cell = cell;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Group holds the running statistics of the stations in one state or grid cell.
+     */
+    private static class Group {
+        private int stations = 0;
+        private final FieldStats[] fields = new FieldStats[WeatherFields.NUMERIC.length];
+
+        Group() {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new FieldStats();
+            }
+        }
+
+        void add(double[] values) {
+            stations++;
+            for (int i = 0; i < fields.length; i++) {
+                if (!Double.isNaN(values[i])) {
+                    fields[i].add(values[i]);
+                }
+            }
+        }
+
+        void remove(double[] values) {
+            stations--;
+            for (int i = 0; i < fields.length; i++) {
+                if (!Double.isNaN(values[i])) {
+                    fields[i].remove(values[i]);
+                }
+            }
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("count", stations);
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].count > 0) {
+                    json.put(WeatherFields.NUMERIC[i], fields[i].toJson());
+                }
+            }
+            return json;
+        }
+    }
+
+    /**
+     * FieldStats tracks a running sum and count, and a sorted multiset of the
+     * values so that min and max stay correct when a station is removed.
+     */
+    private static class FieldStats {
+        private final TreeMap<Double, Integer> values = new TreeMap<>();
+        private double sum = 0;
+        private int count = 0;
+
+        void add(double value) {
+            values.merge(value, 1, Integer::sum);
+            sum += value;
+            count++;
+        }
+
+        void remove(double value) {
+            values.computeIfPresent(value, (k, n) -> n == 1 ? null : n - 1);
+            sum -= value;
+            count--;
+            if (count == 0) {
+                sum = 0; // drop accumulated rounding error
+            }
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("min", values.firstKey());
+            json.put("max", values.lastKey());
+            json.put("avg", sum / count);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherAggregatesTest {
+
+    private static JSONObject data(String state, String lat, String lon, String airTemp) {
+        JSONObject data = new JSONObject();
+        data.put("state", state);
+        data.put("lat", lat);
+        data.put("lon", lon);
+        data.put("air_temp", airTemp);
+        return data;
+    }
+
+    @Test
+    public void testGroupByState() {
+        WeatherAggregates aggregates = new WeatherAggregates(1.0);
+        aggregates.put("adelaide", data("SA", "-34.9", "138.6", "13.3"));
+        aggregates.put("mount_gambier", data("SA", "-37.8", "140.8", "9.7"));
+        aggregates.put("darwin", data("NT", "-12.4", "130.8", "31.0"));
+
+        JSONObject sa = aggregates.query("state").getJSONObject("groups").getJSONObject("SA");
+        assertEquals(2, sa.getInt("count"));
+        assertEquals(9.7, sa.getJSONObject("air_temp").getDouble("min"));
+        assertEquals(13.3, sa.getJSONObject("air_temp").getDouble("max"));
+        assertEquals(11.5, sa.getJSONObject("air_temp").getDouble("avg"), 1e-9);
+    }
+
+    @Test
+    public void testReplaceAndRemoveUpdateGroups() {
+        WeatherAggregates aggregates = new WeatherAggregates(1.0);
+        aggregates.put("adelaide", data("SA", "-34.9", "138.6", "13.3"));
+        aggregates.put("mount_gambier", data("SA", "-37.8", "140.8", "9.7"));
+
+        // Replacing a reading must drop the old value from min/max
+        aggregates.put("mount_gambier", data("SA", "-37.8", "140.8", "15.0"));
+        JSONObject airTemp = aggregates.query("state").getJSONObject("groups")
+                .getJSONObject("SA").getJSONObject("air_temp");
+        assertEquals(13.3, airTemp.getDouble("min"));
+        assertEquals(15.0, airTemp.getDouble("max"));
+
+        aggregates.remove("adelaide");
+        aggregates.remove("mount_gambier");
+        assertTrue(aggregates.query("state").getJSONObject("groups").isEmpty(), "Empty groups should be removed");
+    }
+
+    @Test
+    public void testGroupByGrid() {
+        WeatherAggregates aggregates = new WeatherAggregates(0.5);
+        aggregates.put("adelaide", data("SA", "-34.9", "138.6", "13.3"));
+        aggregates.put("kent_town", data("SA", "-34.92", "138.62", "13.9"));
+        aggregates.put("no_position", new JSONObject().put("air_temp", "10"));
+
+        JSONObject groups = aggregates.query("grid").getJSONObject("groups");
+        assertEquals(1, groups.length());
+        assertEquals(2, groups.getJSONObject("-35.0,138.5").getInt("count"));
+        assertNull(aggregates.query("postcode"), "Unknown groupings should be rejected");
+    }
+
+    @Test
+    public void testGridSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new WeatherAggregates(0));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherAggregates(-1));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherAggregates(Double.NaN));
+    }
+}
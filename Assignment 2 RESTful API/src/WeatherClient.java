@@ -0,0 +1,250 @@
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import org.json.*;
+
+/**
+ * WeatherClient fetches weather data from one or more AggregationServers.
+ * Servers are queried concurrently and their answers are merged by Lamport
+ * clock. Responses are cached per server according to their ETag and
+ * Cache-Control headers, and response bodies are parsed one station at a time
+ * straight from the network stream.
+ */
+public class WeatherClient {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient httpClient;
+    private final Map<String, ServerResponse> cache = new ConcurrentHashMap<>();
+
+    public WeatherClient() {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(TIMEOUT)
+                .build();
+    }
+
+    /**
+     * Fetches the weather data from all given servers and merges it.
+     * When several servers know a station, the copy from the server with the
+     * highest Lamport clock wins. Servers that fail are reported on stderr
+     * and skipped.
+     *
+     * @param serverUrls The AggregationServer URLs to query.
+     * @return The merged weather data keyed by station id.
+     * @throws IOException if no server could be queried successfully.
+     */
+    public Map<String, JSONObject> fetch(List<String> serverUrls) throws IOException {
+        List<CompletableFuture<ServerResponse>> futures = new ArrayList<>();
+        for (String serverUrl : serverUrls) {
+            futures.add(fetchAsync(serverUrl));
+        }
+
+        Map<String, JSONObject> merged = new LinkedHashMap<>();
+        Map<String, Long> mergedClocks = new HashMap<>();
+        IOException failure = null;
+        int succeeded = 0;
+
+        for (int i = 0; i < futures.size(); i++) {
+            ServerResponse response;
+            try {
+                response = futures.get(i).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                // handleResponse can only throw unchecked exceptions, so IOExceptions arrive wrapped
+                if (cause instanceof UncheckedIOException) {
+                    cause = cause.getCause();
+                }
+                System.err.println("GET request to " + serverUrls.get(i) + " failed: " + cause.getMessage());
+                failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                continue;
+            }
+            succeeded++;
+
+            for (Map.Entry<String, JSONObject> entry : response.stations.entrySet()) {
+                Long clock = mergedClocks.get(entry.getKey());
+                if (clock == null || response.lamportClock > clock) {
+                    merged.put(entry.getKey(), entry.getValue());
+                    mergedClocks.put(entry.getKey(), response.lamportClock);
+                }
+            }
+        }
+
+        if (succeeded == 0 && failure != null) {
+            throw failure;
+        }
+        return merged;
+    }
+
+    /**
+     * Fetches the weather data from a single server without blocking.
+     * A cached response that is still fresh is returned without contacting
+     * the server; a stale one is revalidated with If-None-Match.
+     *
+     * @param serverUrl The AggregationServer URL to query.
+     * @return A future completing with the server's response.
+     */
+    public CompletableFuture<ServerResponse> fetchAsync(String serverUrl) {
+        ServerResponse cached = cache.get(serverUrl);
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(serverUrl)).timeout(TIMEOUT).GET();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid server URL: " + serverUrl, e));
+        }
+        if (cached != null && cached.etag != null) {
+            request.header("If-None-Match", cached.etag);
+        }
+
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> handleResponse(serverUrl, cached, response));
+    }
+
+    private ServerResponse handleResponse(String serverUrl, ServerResponse cached, HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            ResponseHeaders headers = new ResponseHeaders(response);
+            ServerResponse result;
+
+            if (response.statusCode() == 304 && cached != null) {
+                result = new ServerResponse(cached.etag, headers.expiresAt(), headers.lamportClock(), cached.stations);
+            } else if (response.statusCode() == 200) {
+                Reader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+                result = new ServerResponse(headers.etag(), headers.expiresAt(), headers.lamportClock(), parseStations(reader));
+            } else {
+                throw new IOException("GET request failed. Response Code: " + response.statusCode());
+            }
+
+            if (headers.noStore()) {
+                cache.remove(serverUrl);
+            } else {
+                cache.put(serverUrl, result);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a top-level JSON object of stations from a stream, one station at a time,
+     * without first reading the whole body into memory.
+     *
+     * @param reader The response body.
+     * @return The stations keyed by id, in the order they were received.
+     */
+    static Map<String, JSONObject> parseStations(Reader reader) {
+        JSONTokener tokener = new JSONTokener(reader);
+        Map<String, JSONObject> stations = new LinkedHashMap<>();
+
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("A JSON object text must begin with '{'");
+        }
+        if (tokener.nextClean() == '}') {
+            return stations;
+        }
+        tokener.back();
+
+        while (true) {
+            String id = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            Object station = tokener.nextValue();
+            if (!(station instanceof JSONObject)) {
+                throw tokener.syntaxError("Expected a station object for " + id);
+            }
+            stations.put(id, (JSONObject) station);
+
+            char next = tokener.nextClean();
+            if (next == '}') {
+                return stations;
+            }
+            if (next != ',') {
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * ServerResponse is one server's answer, as cached by the client.
+     */
+    public static class ServerResponse {
+        private final String etag;
+        private final long expiresAt;
+        private final long lamportClock;
+        private final Map<String, JSONObject> stations;
+
+        ServerResponse(String etag, long expiresAt, long lamportClock, Map<String, JSONObject> stations) {
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.lamportClock = lamportClock;
+            this.stations = Collections.unmodifiableMap(stations);
+        }
+
+        //Returns the Lamport clock the server reported with this response.
+        public long getLamportClock() {
+            return lamportClock;
+        }
+
+        //Returns the stations in this response keyed by id.
+        public Map<String, JSONObject> getStations() {
+            return stations;
+        }
+    }
+
+    /**
+     * ResponseHeaders reads the caching and clock headers of a response.
+     */
+    private static class ResponseHeaders {
+        private final HttpResponse<?> response;
+
+        ResponseHeaders(HttpResponse<?> response) {
+            this.response = response;
+        }
+
+        String etag() {
+            return response.headers().firstValue("ETag").orElse(null);
+        }
+
+        long lamportClock() {
+            try {
+                return Long.parseLong(response.headers().firstValue("Lamport-Clock").orElse("0").trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        boolean noStore() {
+            return cacheControl().contains("no-store");
+        }
+
+        //Returns when the response stops being fresh; no max-age means it must be revalidated every time.
+        long expiresAt() {
+            long now = System.currentTimeMillis();
+            for (String directive : cacheControl().split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                    } catch (NumberFormatException e) {
+                        return now;
+                    }
+                }
+            }
+            return now;
+        }
+
+        private String cacheControl() {
+            return response.headers().firstValue("Cache-Control").orElse("").toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherClientTest {
+
+    private static final String BODY = "{\"a.txt\":{\"id\":\"a.txt\",\"data\":{\"air_temp\":\"10\"}}}";
+
+    // If-None-Match header of every request the fake server received, "" when it was absent
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts a local server that answers with BODY and the given Cache-Control header,
+     * or with 304 Not Modified when the request's If-None-Match matches its ETag.
+     */
+    private HttpServer startFakeServer(String cacheControl) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            requests.add(ifNoneMatch == null ? "" : ifNoneMatch);
+
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+            exchange.getResponseHeaders().add("Lamport-Clock", "1");
+            if ("\"v1\"".equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testParseStationsKeepsOrder() {
+        String body = "{\"b.txt\":{\"id\":\"b.txt\",\"data\":{\"air_temp\":\"10\"}},"
+                + "\"a.txt\":{\"id\":\"a.txt\",\"data\":{\"air_temp\":\"12\"}}}\n";
+
+        Map<String, JSONObject> stations = WeatherClient.parseStations(new StringReader(body));
+
+        assertArrayEquals(new String[]{"b.txt", "a.txt"}, stations.keySet().toArray());
+        assertEquals("12", stations.get("a.txt").getJSONObject("data").getString("air_temp"));
+    }
+
+    @Test
+    public void testParseStationsEmptyAndMalformed() {
+        assertTrue(WeatherClient.parseStations(new StringReader("{}")).isEmpty());
+        assertThrows(JSONException.class, () -> WeatherClient.parseStations(new StringReader("[]")));
+        assertThrows(JSONException.class, () -> WeatherClient.parseStations(new StringReader("{\"a\":1}")));
+    }
+
+    @Test
+    public void testFetchFailsWhenNoServerAnswers() {
+        WeatherClient client = new WeatherClient();
+        assertThrows(IOException.class, () -> client.fetch(List.of("not a url")));
+    }
+
+    @Test
+    public void testFreshResponseIsReused() throws Exception {
+        HttpServer server = startFakeServer("max-age=60");
+        try {
+            WeatherClient client = new WeatherClient();
+            client.fetch(List.of(url(server)));
+            Map<String, JSONObject> stations = client.fetch(List.of(url(server)));
+
+            assertEquals(1, requests.size(), "A response within max-age should not be requested again");
+            assertEquals("10", stations.get("a.txt").getJSONObject("data").getString("air_temp"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStaleResponseIsRevalidated() throws Exception {
+        HttpServer server = startFakeServer("no-cache");
+        try {
+            WeatherClient client = new WeatherClient();
+            client.fetch(List.of(url(server)));
+            Map<String, JSONObject> stations = client.fetch(List.of(url(server)));
+
+            assertEquals(List.of("", "\"v1\""), requests, "A stale response should be revalidated with its ETag");
+            assertEquals("10", stations.get("a.txt").getJSONObject("data").getString("air_temp"),
+                    "The cached stations should be reused on 304 Not Modified");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testNoStoreIsNotCached() throws Exception {
+        HttpServer server = startFakeServer("no-store, max-age=60");
+        try {
+            WeatherClient client = new WeatherClient();
+            client.fetch(List.of(url(server)));
+            client.fetch(List.of(url(server)));
+
+            assertEquals(List.of("", ""), requests, "A no-store response should be neither reused nor revalidated");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testServerErrorMessageIsNotWrapped() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            IOException e = assertThrows(IOException.class, () -> new WeatherClient().fetch(List.of(url(server))));
+            assertEquals("GET request failed. Response Code: 500", e.getMessage());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
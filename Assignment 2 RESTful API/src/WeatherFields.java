@@ -0,0 +1,26 @@
+/**
+ * WeatherFields lists the numeric weather fields the server summarises
+ * and parses their values, which content servers upload as strings.
+ */
+public class WeatherFields {
+    // Numeric fields that are tracked, in column order
+    static final String[] NUMERIC = {"air_temp", "press", "rel_hum", "wind_spd_kmh"};
+
+    private WeatherFields() {
+    }
+
+    //Returns the value as a double, or NaN if it is missing or not numeric.
+    static double parseValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
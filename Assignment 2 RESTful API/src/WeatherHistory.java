@@ -0,0 +1,335 @@
+import java.util.*;
+import org.json.*;
+
+/**
+ * WeatherHistory keeps a bounded history of numeric observations per station.
+ * Recent raw samples are kept in fixed-size ring buffers stored column by column,
+ * and every sample is also folded into 1-minute and 1-hour min/max/avg rollups
+ * so that longer range queries never have to scan raw samples.
+ */
+public class WeatherHistory {
+    // Numeric fields that are tracked, in column order
+    private static final String[] FIELDS = WeatherFields.NUMERIC;
+
+    static final long MINUTE = 60_000L;
+    static final long HOUR = 60 * MINUTE;
+
+    private final int rawCapacity;
+    private final int minuteSlots;
+    private final int hourSlots;
+    private final Map<String, StationSeries> stations;
+
+    /**
+     * Creates a history store.
+     *
+     * @param maxStations Maximum number of stations tracked; the least recently updated is dropped first.
+     * @param rawCapacity Number of raw samples kept per station.
+     * @param minuteSlots Number of 1-minute rollups kept per station.
+     * @param hourSlots Number of 1-hour rollups kept per station.
+     * @throws IllegalArgumentException if any of the sizes is not positive.
+     */
+    public WeatherHistory(int maxStations, int rawCapacity, int minuteSlots, int hourSlots) {
+        if (maxStations <= 0 || rawCapacity <= 0 || minuteSlots <= 0 || hourSlots <= 0) {
+            throw new IllegalArgumentException("History sizes must be positive");
+        }
+        this.rawCapacity = rawCapacity;
+        this.minuteSlots = minuteSlots;
+        this.hourSlots = hourSlots;
+        // Insertion order, re-inserted on every record, so reads don't count as updates
+        this.stations = new LinkedHashMap<String, StationSeries>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StationSeries> eldest) {
+                return size() > maxStations;
+            }
+        };
+    }
+
+    /**
+     * Records an observation for a station.
+     * Fields that are missing or not numeric are stored as NaN and ignored by rollups.
+     *
+     * @param id The station id.
+     * @param time The observation time in epoch milliseconds.
+     * @param data The station's "data" object as uploaded by the content server.
+     */
+    public void record(String id, long time, JSONObject data) {
+        double[] values = new double[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            values[i] = WeatherFields.parseValue(data == null ? null : data.opt(FIELDS[i]));
+        }
+
+        StationSeries series;
+        synchronized (stations) {
+            series = stations.remove(id);
+            if (series == null) {
+                series = new StationSeries(rawCapacity, minuteSlots, hourSlots);
+            }
+            stations.put(id, series);
+        }
+        series.add(time, values);
+    }
+
+    /**
+     * Queries the history of a station.
+     * A step below one minute is answered from raw samples, a step below one hour
+     * from the 1-minute rollups and anything coarser from the 1-hour rollups.
+     * A finer resolution that no longer covers the start of the range falls back
+     * to the next coarser one.
+     *
+     * @param id The station id.
+     * @param from Start of the range in epoch milliseconds, inclusive.
+     * @param to End of the range in epoch milliseconds, inclusive.
+     * @param step Bucket width in milliseconds, or 0 to return each sample of the chosen resolution.
+     * @return The query result, or null if the station has no history.
+     */
+    public JSONObject query(String id, long from, long to, long step) {
+        StationSeries series;
+        synchronized (stations) {
+            series = stations.get(id);
+        }
+        if (series == null) {
+            return null;
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("id", id);
+        result.put("from", from);
+        result.put("to", to);
+        result.put("step", step);
+        series.query(from, to, step, result);
+        return result;
+    }
+
+    /**
+     * StationSeries holds the raw ring buffer and rollups of a single station.
+     */
+    private static class StationSeries {
+        private final long[] times;
+        private final double[][] columns;
+        private int head = 0; // next slot to write
+        private int size = 0;
+
+        private final Rollup minutes;
+        private final Rollup hours;
+
+        StationSeries(int rawCapacity, int minuteSlots, int hourSlots) {
+            this.times = new long[rawCapacity];
+            this.columns = new double[FIELDS.length][rawCapacity];
+            this.minutes = new Rollup(MINUTE, minuteSlots);
+            this.hours = new Rollup(HOUR, hourSlots);
+        }
+
+        synchronized void add(long time, double[] values) {
+            times[head] = time;
+            for (int f = 0; f < FIELDS.length; f++) {
+                columns[f][head] = values[f];
+            }
+            head = (head + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+
+            minutes.add(time, values);
+            hours.add(time, values);
+        }
+
+        synchronized void query(long from, long to, long step, JSONObject result) {
+            Buckets buckets = new Buckets(step);
+            String resolution;
+
+            if (step < MINUTE && rawCovers(from)) {
+                resolution = "raw";
+                addRawSamples(from, to, buckets);
+            } else if (step < HOUR && minutes.covers(from)) {
+                resolution = "1m";
+                minutes.addTo(from, to, buckets);
+            } else {
+                resolution = "1h";
+                hours.addTo(from, to, buckets);
+            }
+
+            result.put("resolution", resolution);
+            result.put("points", buckets.toJson());
+        }
+
+        //Returns true if no raw sample at or after the given time has been overwritten yet.
+        private boolean rawCovers(long time) {
+            return size < times.length || times[head] <= time;
+        }
+
+        private void addRawSamples(long from, long to, Buckets buckets) {
+            int start = (head - size + times.length) % times.length;
+            double[] values = new double[FIELDS.length];
+            for (int i = 0; i < size; i++) {
+                int slot = (start + i) % times.length;
+                long time = times[slot];
+                if (time < from || time > to) {
+                    continue;
+                }
+                for (int f = 0; f < FIELDS.length; f++) {
+                    values[f] = columns[f][slot];
+                }
+                buckets.addSample(time, values);
+            }
+        }
+    }
+
+    /**
+     * Rollup keeps min/max/sum/count per field for fixed-width time buckets
+     * in a ring of slots. A slot is reused once its bucket falls out of range.
+     */
+    private static class Rollup {
+        private final long width;
+        private final long[] starts;
+        private final int[][] counts;
+        private final double[][] mins;
+        private final double[][] maxs;
+        private final double[][] sums;
+        private long firstStart = Long.MIN_VALUE;
+        private long latestStart = Long.MIN_VALUE;
+
+        Rollup(long width, int slots) {
+            this.width = width;
+            this.starts = new long[slots];
+            Arrays.fill(starts, Long.MIN_VALUE);
+            this.counts = new int[FIELDS.length][slots];
+            this.mins = new double[FIELDS.length][slots];
+            this.maxs = new double[FIELDS.length][slots];
+            this.sums = new double[FIELDS.length][slots];
+        }
+
+        void add(long time, double[] values) {
+            long start = Math.floorDiv(time, width) * width;
+            int slot = slotOf(start);
+            if (starts[slot] != start) {
+                if (starts[slot] > start) {
+                    return; // older than anything this rollup still retains
+                }
+                starts[slot] = start;
+                for (int f = 0; f < FIELDS.length; f++) {
+                    counts[f][slot] = 0;
+                    sums[f][slot] = 0;
+                }
+            }
+            if (firstStart == Long.MIN_VALUE) {
+                firstStart = start;
+            }
+            latestStart = Math.max(latestStart, start);
+
+            for (int f = 0; f < FIELDS.length; f++) {
+                double value = values[f];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (counts[f][slot] == 0) {
+                    mins[f][slot] = value;
+                    maxs[f][slot] = value;
+                } else {
+                    mins[f][slot] = Math.min(mins[f][slot], value);
+                    maxs[f][slot] = Math.max(maxs[f][slot], value);
+                }
+                sums[f][slot] += value;
+                counts[f][slot]++;
+            }
+        }
+
+        //Returns true if no bucket at or after the given time has been overwritten yet.
+        boolean covers(long time) {
+            if (latestStart == Long.MIN_VALUE) {
+                return false;
+            }
+            long oldestStart = latestStart - (starts.length - 1) * width;
+            return firstStart >= oldestStart || Math.floorDiv(time, width) * width >= oldestStart;
+        }
+
+        //Merges every retained bucket in the range into the given buckets, visiting at most one pass of slots.
+        void addTo(long from, long to, Buckets buckets) {
+            if (latestStart == Long.MIN_VALUE) {
+                return;
+            }
+            long oldestStart = latestStart - (starts.length - 1) * width;
+            long first = Math.max(Math.floorDiv(from, width) * width, oldestStart);
+            long last = Math.min(to, latestStart);
+            for (long start = first; start <= last; start += width) {
+                int slot = slotOf(start);
+                if (starts[slot] == start) {
+                    buckets.addRollup(start, slot, counts, mins, maxs, sums);
+                }
+            }
+        }
+
+        private int slotOf(long start) {
+            return (int) Math.floorMod(start / width, (long) starts.length);
+        }
+    }
+
+    /**
+     * Buckets accumulates query results into step-sized output buckets.
+     * With a step of 0 each input sample or rollup becomes its own bucket.
+     */
+    private static class Buckets {
+        private final long step;
+        private final TreeMap<Long, double[][]> byStart = new TreeMap<>();
+
+        Buckets(long step) {
+            this.step = step;
+        }
+
+        void addSample(long time, double[] values) {
+            double[][] bucket = bucketFor(time);
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (!Double.isNaN(values[f])) {
+                    merge(bucket[f], 1, values[f], values[f], values[f]);
+                }
+            }
+        }
+
+        void addRollup(long time, int slot, int[][] counts, double[][] mins, double[][] maxs, double[][] sums) {
+            double[][] bucket = bucketFor(time);
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (counts[f][slot] > 0) {
+                    merge(bucket[f], counts[f][slot], mins[f][slot], maxs[f][slot], sums[f][slot]);
+                }
+            }
+        }
+
+        JSONArray toJson() {
+            JSONArray points = new JSONArray();
+            for (Map.Entry<Long, double[][]> entry : byStart.entrySet()) {
+                JSONObject point = new JSONObject();
+                point.put("t", entry.getKey());
+                double[][] bucket = entry.getValue();
+                for (int f = 0; f < FIELDS.length; f++) {
+                    double[] stats = bucket[f];
+                    if (stats[0] == 0) {
+                        continue;
+                    }
+                    JSONObject field = new JSONObject();
+                    field.put("count", (long) stats[0]);
+                    field.put("min", stats[1]);
+                    field.put("max", stats[2]);
+                    field.put("avg", stats[3] / stats[0]);
+                    point.put(FIELDS[f], field);
+                }
+                points.put(point);
+            }
+            return points;
+        }
+
+        // Each field is stored as {count, min, max, sum}
+        private double[][] bucketFor(long time) {
+            long start = step > 0 ? Math.floorDiv(time, step) * step : time;
+            return byStart.computeIfAbsent(start, k -> new double[FIELDS.length][4]);
+        }
+
+        private static void merge(double[] stats, int count, double min, double max, double sum) {
+            if (stats[0] == 0) {
+                stats[1] = min;
+                stats[2] = max;
+            } else {
+                stats[1] = Math.min(stats[1], min);
+                stats[2] = Math.max(stats[2], max);
+            }
+            stats[0] += count;
+            stats[3] += sum;
+        }
+    }
+}
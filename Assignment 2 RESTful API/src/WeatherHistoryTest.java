@@ -0,0 +1,95 @@
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherHistoryTest {
+
+    private static JSONObject data(String airTemp) {
+        JSONObject data = new JSONObject();
+        data.put("air_temp", airTemp);
+        data.put("press", "1000.0");
+        return data;
+    }
+
+    @Test
+    public void testRawSamplesWithinRange() {
+        WeatherHistory history = new WeatherHistory(10, 16, 60, 24);
+        history.record("IDS60901", 1_000, data("10"));
+        history.record("IDS60901", 2_000, data("12"));
+        history.record("IDS60901", 3_000, data("14"));
+
+        JSONObject result = history.query("IDS60901", 1_500, 3_000, 0);
+
+        assertEquals("raw", result.getString("resolution"));
+        JSONArray points = result.getJSONArray("points");
+        assertEquals(2, points.length(), "Only samples inside the range should be returned");
+        assertEquals(12.0, points.getJSONObject(0).getJSONObject("air_temp").getDouble("avg"));
+        assertFalse(points.getJSONObject(0).has("rel_hum"), "Missing fields should be left out");
+    }
+
+    @Test
+    public void testMinuteRollup() {
+        WeatherHistory history = new WeatherHistory(10, 16, 60, 24);
+        history.record("IDS60901", 0, data("10"));
+        history.record("IDS60901", 30_000, data("20"));
+        history.record("IDS60901", 60_000, data("5"));
+
+        JSONObject result = history.query("IDS60901", 0, 120_000, WeatherHistory.MINUTE);
+
+        assertEquals("1m", result.getString("resolution"));
+        JSONArray points = result.getJSONArray("points");
+        assertEquals(2, points.length());
+        JSONObject firstMinute = points.getJSONObject(0).getJSONObject("air_temp");
+        assertEquals(10.0, firstMinute.getDouble("min"));
+        assertEquals(20.0, firstMinute.getDouble("max"));
+        assertEquals(15.0, firstMinute.getDouble("avg"));
+        assertEquals(2, firstMinute.getInt("count"));
+    }
+
+    @Test
+    public void testRawBufferIsBounded() {
+        WeatherHistory history = new WeatherHistory(10, 4, 60, 24);
+        for (int i = 0; i < 10; i++) {
+            history.record("IDS60901", i * 1_000L, data(String.valueOf(i)));
+        }
+
+        // The oldest raw samples were overwritten, so the minute rollup answers instead
+        JSONObject result = history.query("IDS60901", 0, 10_000, 0);
+        assertEquals("1m", result.getString("resolution"));
+        assertEquals(10, result.getJSONArray("points").getJSONObject(0).getJSONObject("air_temp").getInt("count"));
+    }
+
+    @Test
+    public void testLeastRecentlyUpdatedStationIsDropped() {
+        WeatherHistory history = new WeatherHistory(2, 4, 60, 24);
+        history.record("first", 0, data("1"));
+        history.record("second", 0, data("2"));
+        history.record("first", 1_000, data("3"));
+
+        // Reading a station must not protect it from eviction
+        assertNotNull(history.query("second", 0, 1_000, 0));
+        history.record("third", 2_000, data("4"));
+
+        assertNull(history.query("second", 0, 2_000, 0), "Least recently updated station should be dropped");
+        assertNotNull(history.query("first", 0, 2_000, 0));
+        assertNotNull(history.query("third", 0, 2_000, 0));
+    }
+
+    @Test
+    public void testUnknownStation() {
+        WeatherHistory history = new WeatherHistory(2, 4, 60, 24);
+        history.record("first", 0, data("1"));
+
+        assertNull(history.query("missing", 0, 1_000, 0));
+    }
+
+    @Test
+    public void testSizesMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new WeatherHistory(0, 4, 60, 24));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherHistory(2, 0, 60, 24));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherHistory(2, 4, -1, 24));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherHistory(2, 4, 60, 0));
+    }
+}